@@ -0,0 +1,206 @@
+/*
+Copyright (C) 2017 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.lircclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A LircClient that can be shared between threads, wrapping another LircClient that owns the connection.
+ * Commands from all threads are put on a lock-free queue, and written, possibly several at a time,
+ * by one writer thread. Since the server replies in order, a reader thread hands the replies back
+ * to the callers in FIFO order. No monitors are held while blocking.
+ */
+public final class ConcurrentLircClient extends LircClient {
+
+    private static final int MAXBATCHSIZE = 4096;
+
+    private final LircClient lircClient;
+    private final ConcurrentLinkedQueue<Request> submitted;
+    private final LinkedBlockingQueue<Request> inFlight;
+    private final Thread writer;
+    private final Thread reader;
+    private final ThreadLocal<String> lastRemoteCommand;
+    private volatile IOException closedException;
+
+    /**
+     * @param lircClient LircClient owning the connection. Must not be used directly afterwards.
+     */
+    public ConcurrentLircClient(LircClient lircClient) {
+        super(lircClient.verbose);
+        this.lircClient = lircClient;
+        submitted = new ConcurrentLinkedQueue<>();
+        inFlight = new LinkedBlockingQueue<>();
+        lastRemoteCommand = new ThreadLocal<>();
+        closedException = null;
+
+        writer = new Thread(this::writeLoop, "lircclient-writer-" + lircClient.socketName());
+        writer.setDaemon(true);
+        reader = new Thread(this::readLoop, "lircclient-reader-" + lircClient.socketName());
+        reader.setDaemon(true);
+        writer.start();
+        reader.start();
+    }
+
+    @Override
+    public void setVerbosity(boolean verbosity) {
+        super.setVerbosity(verbosity);
+        lircClient.setVerbosity(verbosity);
+    }
+
+    @Override
+    protected List<String> sendCommand(byte[] bytes, String command) throws IOException {
+        if (closedException != null)
+            throw new IOException(closedException.getMessage(), closedException);
+        if (verbose)
+            System.err.println("Queueing command `" + command + "' to Lirc@" + socketName());
+
+        Request request = new Request(bytes, command);
+        submitted.add(request);
+        LockSupport.unpark(writer);
+        if (closedException != null)
+            failAll(); // closed while we were submitting; nobody else will drain the queue
+
+        try {
+            return request.future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for reply to " + command);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The last command is kept per calling thread, so that {@link #stopIr()} stops the command
+     * last sent by the same thread, not by whatever thread happened to send last.
+     */
+    @Override
+    protected void setLastRemoteCommand(String remoteCommand) {
+        lastRemoteCommand.set(remoteCommand);
+    }
+
+    @Override
+    protected String getLastRemoteCommand() {
+        return lastRemoteCommand.get();
+    }
+
+    private void writeLoop() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        while (closedException == null) {
+            Request request = submitted.poll();
+            if (request == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            // Everything queued is written in one go; the requests must reach inFlight in the order written.
+            buffer.reset();
+            do {
+                inFlight.add(request);
+                buffer.write(request.bytes, 0, request.bytes.length);
+                request = buffer.size() < MAXBATCHSIZE ? submitted.poll() : null;
+            } while (request != null);
+
+            try {
+                lircClient.sendBytes(buffer.toByteArray());
+            } catch (IOException ex) {
+                shutdown(ex);
+            }
+        }
+        failAll(); // requests added to inFlight after the reader quit
+    }
+
+    private void readLoop() {
+        while (closedException == null) {
+            Request request;
+            try {
+                request = inFlight.take();
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            try {
+                request.future.complete(lircClient.readReply(request.command));
+            } catch (LircServerException ex) {
+                // the reply was recognized, so the connection is still in sync
+                request.future.completeExceptionally(ex);
+            } catch (IOException ex) {
+                // includes timeouts and end of stream: a late reply would be taken for the reply to the next request
+                request.future.completeExceptionally(ex);
+                shutdown(ex);
+            } catch (RuntimeException ex) {
+                // part of the reply may still be unread
+                request.future.completeExceptionally(ex);
+                shutdown(new IOException(ex));
+            }
+        }
+        failAll();
+    }
+
+    private void shutdown(IOException ex) {
+        if (closedException == null)
+            closedException = ex;
+        LockSupport.unpark(writer);
+        reader.interrupt();
+        failAll();
+    }
+
+    private void failAll() {
+        IOException ex = closedException;
+        Request request;
+        while ((request = inFlight.poll()) != null)
+            request.future.completeExceptionally(ex);
+        while ((request = submitted.poll()) != null)
+            request.future.completeExceptionally(ex);
+    }
+
+    @Override
+    protected String socketName() {
+        return lircClient.socketName();
+    }
+
+    @Override
+    public void close() throws IOException {
+        shutdown(new IOException("LircClient closed"));
+        lircClient.close();
+    }
+
+    private static final class Request {
+
+        private final byte[] bytes;
+        private final String command;
+        private final CompletableFuture<List<String>> future;
+
+        Request(byte[] bytes, String command) {
+            this.bytes = bytes;
+            this.command = command;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
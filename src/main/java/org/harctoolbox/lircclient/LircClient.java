@@ -23,8 +23,10 @@ import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
 import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -39,6 +41,7 @@ public abstract class LircClient implements Closeable {
     public static final int EXITUSAGEERROR = 1;
     public static final int EXITEXECUTIONERROR = 2;
     public static final String encodingName = "US-ASCII";
+    private static final Charset charset = Charset.forName(encodingName);
 
     private static JCommander argumentParser;
     private static CommandLineArgs commandLineArgs = new CommandLineArgs();
@@ -98,6 +101,9 @@ public abstract class LircClient implements Closeable {
         CommandSimulate cmdSimulate = new CommandSimulate();
         argumentParser.addCommand("simulate", cmdSimulate);
 
+        CommandSimulateLoad cmdSimulateLoad = new CommandSimulateLoad();
+        argumentParser.addCommand("simulate-load", cmdSimulateLoad);
+
         CommandTransmitters cmdSetTransmitters = new CommandTransmitters();
         argumentParser.addCommand("transmitters", cmdSetTransmitters);
 
@@ -169,6 +175,16 @@ public abstract class LircClient implements Closeable {
                 case "simulate":
                     lircClient.simulate(cmdSimulate.eventString);
                     break;
+                case "simulate-load":
+                    if (!(lircClient instanceof LircEventSource))
+                        doExit("Command \"simulate-load\" requires a connection that can receive events", EXITUSAGEERROR);
+                    SimulateLoad simulateLoad = new SimulateLoad(() -> newLircClient(commandLineArgs), (LircEventSource) lircClient,
+                            cmdSimulateLoad.connections, cmdSimulateLoad.rate, cmdSimulateLoad.count,
+                            cmdSimulateLoad.remote, cmdSimulateLoad.button);
+                    simulateLoad.run();
+                    simulateLoad.report(System.out);
+                    success = simulateLoad.getFailed() == 0 && simulateLoad.getLost() == 0;
+                    break;
                 default:
                     doExit("Unknown command: " + argumentParser.getParsedCommand(), EXITUSAGEERROR);
             }
@@ -188,16 +204,14 @@ public abstract class LircClient implements Closeable {
                 : new TcpLircClient(commandLineArgs.address, commandLineArgs.port, commandLineArgs.verbose, commandLineArgs.timeout);
     }
 
-    protected boolean verbose;
+    protected volatile boolean verbose;
 
-    private String lastRemote;
-    private String lastCommand;
+    private volatile String lastRemoteCommand; // "remote command", in one field for atomic update
     protected OutputStream outToServer;
     protected BufferedReader inFromServer;
 
     protected LircClient(boolean verbose) {
-        this.lastCommand = null;
-        this.lastRemote = null;
+        this.lastRemoteCommand = null;
         this.verbose = verbose;
     }
 
@@ -215,22 +229,37 @@ public abstract class LircClient implements Closeable {
         inFromServer.close();
     }
 
-    private void sendBytes(byte[] cmd) throws IOException {
+    void sendBytes(byte[] cmd) throws IOException {
         outToServer.write(cmd);
         outToServer.flush(); // just to be safe
     }
 
-    private void sendString(String cmd) throws IOException {
-        sendBytes(cmd.getBytes(encodingName));
+    private List<String> sendCommand(String command) throws IOException {
+        return sendCommand((command + '\n').getBytes(charset), command);
     }
 
-    private List<String> sendCommand(String command) throws IOException {
+    /**
+     * Sends a command and waits for its reply. All commands go through this method.
+     * @param bytes encoded command, including the terminating newline.
+     * @param command the command as String, expected to be echoed by the server.
+     * @return data lines of the reply.
+     * @throws IOException
+     */
+    protected List<String> sendCommand(byte[] bytes, String command) throws IOException {
         if (verbose)
             System.err.println("Sending command `" + command + "' to Lirc@" + socketName());
 
-        sendString(command + '\n');
+        sendBytes(bytes);
+        return readReply(command);
+    }
 
+    /**
+     * Reads the reply to the command given as argument, skipping everything before it.
+     * An error reply is read to its end, so that the next reply can be read.
+     */
+    final List<String> readReply(String command) throws IOException {
         ArrayList<String> result = new ArrayList<>(8);
+        boolean failed = false;
         State state = State.BEGIN;
         int linesReceived = 0;
         int linesExpected = -1;
@@ -240,10 +269,8 @@ public abstract class LircClient implements Closeable {
             if (verbose)
                 System.err.println("Received \"" + line + "\"");
 
-            if (line == null) {
-                state = State.DONE;
-                continue;
-            }
+            if (line == null)
+                throw new EOFException("Connection closed by Lirc@" + socketName() + " while waiting for reply to " + command);
             switch (state) {
                 case BEGIN:
                     if (line.equals("BEGIN"))
@@ -261,7 +288,9 @@ public abstract class LircClient implements Closeable {
                             state = State.DONE;
                             break;
                         case "ERROR":
-                            throw new LircServerException("command failed: " + command);
+                            failed = true; // the DATA following, if any, is the reason
+                            state = State.DATA;
+                            break;
                         default:
                             throw new BadPacketException("unknown response: " + command);
                     }
@@ -304,6 +333,8 @@ public abstract class LircClient implements Closeable {
                     throw new RuntimeException("Unhandled case (programming error)");
             }
         }
+        if (failed)
+            throw new LircServerException(command, String.join(" ", result));
         if (verbose)
             System.err.println("Lirc command succeded.");
 
@@ -311,14 +342,27 @@ public abstract class LircClient implements Closeable {
     }
 
     public void sendIrCommand(String remote, String command, int count) throws IOException {
-        this.lastRemote = remote;
-        this.lastCommand = command;
+        setLastRemoteCommand(remote + " " + command);
         sendCommand("SEND_ONCE " + remote + " " + command + " " + (count - 1));
     }
 
+    /**
+     * Encodes a SEND_ONCE command once, for repeated use with {@link #sendIrCommand(PreparedCommand, int)}.
+     * @param remote
+     * @param command
+     * @return PreparedCommand, not tied to this LircClient.
+     */
+    public PreparedCommand prepare(String remote, String command) {
+        return new PreparedCommand(remote, command);
+    }
+
+    public void sendIrCommand(PreparedCommand preparedCommand, int count) throws IOException {
+        setLastRemoteCommand(preparedCommand.toString());
+        sendCommand(preparedCommand.encode(count), preparedCommand.echo(count));
+    }
+
     public void sendIrCommandRepeat(String remote, String command) throws IOException {
-        this.lastRemote = remote;
-        this.lastCommand = command;
+        setLastRemoteCommand(remote + " " + command);
         sendCommand("SEND_START " + remote + " " + command);
     }
 
@@ -327,7 +371,19 @@ public abstract class LircClient implements Closeable {
     }
 
     public void stopIr() throws IOException {
-        sendCommand("SEND_STOP " + lastRemote + " " + lastCommand);
+        sendCommand("SEND_STOP " + getLastRemoteCommand());
+    }
+
+    /**
+     * Remembers remote and command of the last command sent, for {@link #stopIr()}.
+     * @param remoteCommand remote and command, separated by a space.
+     */
+    protected void setLastRemoteCommand(String remoteCommand) {
+        this.lastRemoteCommand = remoteCommand;
+    }
+
+    protected String getLastRemoteCommand() {
+        return lastRemoteCommand;
     }
 
     public List<String> getRemotes() throws IOException {
@@ -482,6 +538,24 @@ public abstract class LircClient implements Closeable {
         private String eventString;
     }
 
+    @Parameters(commandDescription = "Inject simulated events at a given rate and report the latency until received")
+    private final static class CommandSimulateLoad {
+        @Parameter(names = {"-b", "--button"}, description = "Button name in the simulated events")
+        private String button = SimulateLoad.DEFAULTBUTTON;
+
+        @Parameter(names = {"--connections"}, description = "Number of sending connections")
+        private int connections = 4;
+
+        @Parameter(names = {"-#", "-c", "--count"}, description = "Total number of events to send")
+        private int count = 1000;
+
+        @Parameter(names = {"-r", "--rate"}, description = "Target rate in events per second, 0 for as fast as possible")
+        private double rate = 100.0;
+
+        @Parameter(names = {"--remote"}, description = "Remote name in the simulated events")
+        private String remote = SimulateLoad.DEFAULTREMOTE;
+    }
+
     @Parameters(commandDescription = "Set transmitters")
     private final static class CommandTransmitters {
         @Parameter(description = "transmitter...")
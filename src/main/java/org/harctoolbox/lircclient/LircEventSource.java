@@ -0,0 +1,36 @@
+/*
+Copyright (C) 2017 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.lircclient;
+
+import java.io.IOException;
+
+/**
+ * A connection on which the lines that the Lirc server broadcasts to all its clients can be read.
+ * Implemented by the LircClients owning their connection, not by {@link ConcurrentLircClient},
+ * whose reader thread consumes everything the server sends.
+ */
+public interface LircEventSource {
+
+    /**
+     * Reads one line as broadcast by the server to all its clients, normally a received (or simulated) IR event.
+     * Should not be called concurrently with the commands of the same LircClient.
+     * @return The line received, or null if the server closed the connection.
+     * @throws IOException for example if the socket times out.
+     */
+    public String readEvent() throws IOException;
+}
@@ -0,0 +1,358 @@
+/*
+Copyright (C) 2017 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.lircclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Monitors the health of one or more Lirc servers, by periodically sending VERSION to each of them.
+ * Every server has its own probing thread, so that an unreachable one does not delay the others.
+ * For every server, the up/down state and the latency of the last probes are kept,
+ * together with what is known about the optional commands it supports.
+ * The latter is learned from the outcome of the commands sent by the callers, see {@link Endpoint#learn}.
+ */
+public final class LircHealthMonitor implements Closeable {
+
+    public static final int DEFAULTINTERVAL = 10000;
+    public static final int DEFAULTFAILURETHRESHOLD = 2;
+    public static final int DEFAULTHISTORYSIZE = 64;
+
+    /**
+     * Reasons, given by lircd in its error replies, meaning that a command is not supported or not enabled,
+     * as opposed to having bad arguments.
+     */
+    private static final Pattern unsupportedPattern = Pattern.compile(
+            "unknown directive|unknown command|not supported|does not support|not implemented|disabled|not enabled",
+            Pattern.CASE_INSENSITIVE);
+
+    private final List<Endpoint> endpoints;
+    private final int interval;
+    private final int failureThreshold;
+    private final int historySize;
+    private final ScheduledThreadPoolExecutor executor;
+    private volatile boolean closed;
+    private volatile boolean verbose;
+
+    /**
+     * @param interval time between probes of an endpoint, in milliseconds.
+     * @param failureThreshold number of consecutive failed probes before an endpoint is considered down.
+     * @param historySize number of latencies kept per endpoint.
+     * @param verbose
+     */
+    public LircHealthMonitor(int interval, int failureThreshold, int historySize, boolean verbose) {
+        if (interval <= 0 || failureThreshold < 1 || historySize < 1)
+            throw new IllegalArgumentException("interval, failureThreshold, and historySize must be positive");
+        this.endpoints = new CopyOnWriteArrayList<>();
+        this.interval = interval;
+        this.failureThreshold = failureThreshold;
+        this.historySize = historySize;
+        this.verbose = verbose;
+        this.closed = false;
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        this.executor = new ScheduledThreadPoolExecutor(1, (Runnable runnable) -> {
+            Thread thread = new Thread(runnable, "lirc-health-monitor-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public LircHealthMonitor() {
+        this(DEFAULTINTERVAL, DEFAULTFAILURETHRESHOLD, DEFAULTHISTORYSIZE, false);
+    }
+
+    public void setVerbosity(boolean verbosity) {
+        this.verbose = verbosity;
+    }
+
+    /**
+     * Adds an endpoint, and starts probing it.
+     * @param name name of the endpoint, for example "host:port".
+     * @param lircClientFactory opens the connection used for probing. Reopened after failures.
+     * @return the new Endpoint.
+     */
+    public Endpoint addEndpoint(String name, LircClientFactory lircClientFactory) {
+        Endpoint endpoint = new Endpoint(name, lircClientFactory);
+        endpoints.add(endpoint);
+        executor.setCorePoolSize(endpoints.size()); // one thread per endpoint, so that a hanging probe blocks only its own endpoint
+        executor.scheduleWithFixedDelay(endpoint::probe, 0L, interval, TimeUnit.MILLISECONDS);
+        return endpoint;
+    }
+
+    public Endpoint addEndpoint(String address, int port, int timeout) {
+        return addEndpoint(address + ":" + port, () -> new TcpLircClient(address, port, false, timeout));
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * @return The endpoints presently considered up, in the order added.
+     */
+    public List<Endpoint> getHealthyEndpoints() {
+        List<Endpoint> result = new ArrayList<>(endpoints.size());
+        endpoints.stream().filter(Endpoint::isUp).forEach(result::add);
+        return result;
+    }
+
+    /**
+     * @param capability
+     * @return The healthy endpoints not known to reject the capability, in the order added.
+     */
+    public List<Endpoint> getHealthyEndpoints(Capability capability) {
+        List<Endpoint> result = new ArrayList<>(endpoints.size());
+        endpoints.stream().filter((endpoint) -> endpoint.isUp() && endpoint.isSupported(capability)).forEach(result::add);
+        return result;
+    }
+
+    /**
+     * Stops probing, and closes all connections, waiting at most one interval for running probes.
+     * The connection of a probe still running is closed under it, making it fail.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        executor.shutdownNow();
+        boolean terminated = false;
+        try {
+            terminated = executor.awaitTermination(interval, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (!terminated && verbose)
+            System.err.println("Lirc health monitor: probes still running, closing their connections");
+        for (Endpoint endpoint : endpoints)
+            endpoint.disconnect();
+    }
+
+    /**
+     * Optional commands, not necessarily supported, or enabled, by every server.
+     */
+    public static enum Capability {
+        SET_TRANSMITTERS,
+        DRV_OPTION,
+        SIMULATE,
+        SET_INPUTLOG;
+
+        /**
+         * Finds the capability that the command requires.
+         * @param command as sent to the server, for example "DRV_OPTION key value".
+         * @return Capability, or null if the command is not one of the optional ones.
+         */
+        public static Capability of(String command) {
+            if (command == null)
+                return null;
+            String verb = command.trim().split("\\s+", 2)[0];
+            for (Capability capability : values())
+                if (capability.name().equalsIgnoreCase(verb))
+                    return capability;
+            return null;
+        }
+    }
+
+    /**
+     * State of one monitored Lirc server.
+     */
+    public final class Endpoint {
+
+        private final String name;
+        private final LircClientFactory lircClientFactory;
+        private final long[] latencies;
+        private final Map<Capability, Boolean> capabilities;
+        private final AtomicReference<LircClient> lircClient; // swapped to null by whoever disconnects
+        private int nextLatency; // index in latencies to write next
+        private int noLatencies; // number of valid entries in latencies, at most historySize
+        private int consecutiveFailures;
+        private volatile boolean up;
+        private volatile String version;
+        private volatile IOException lastException;
+
+        private Endpoint(String name, LircClientFactory lircClientFactory) {
+            this.name = name;
+            this.lircClientFactory = lircClientFactory;
+            this.latencies = new long[historySize];
+            this.capabilities = new ConcurrentHashMap<>(8);
+            this.lircClient = new AtomicReference<>(null);
+            this.nextLatency = 0;
+            this.noLatencies = 0;
+            this.consecutiveFailures = 0;
+            this.up = false;
+            this.version = null;
+            this.lastException = null;
+        }
+
+        private void probe() {
+            if (closed)
+                return;
+            try {
+                LircClient client = lircClient.get();
+                if (client == null) {
+                    client = lircClientFactory.newLircClient();
+                    lircClient.set(client);
+                    if (closed) {
+                        disconnect(); // close() may have missed it
+                        return;
+                    }
+                }
+                long start = System.nanoTime();
+                String answer = client.getVersion();
+                long latency = System.nanoTime() - start;
+                synchronized (this) {
+                    latencies[nextLatency] = latency;
+                    nextLatency = (nextLatency + 1) % historySize;
+                    if (noLatencies < historySize)
+                        noLatencies++;
+                    consecutiveFailures = 0;
+                }
+                version = answer;
+                up = true;
+                if (verbose)
+                    System.err.println("Lirc@" + name + " up, latency " + latency / 1000L + " us");
+            } catch (IOException | RuntimeException ex) {
+                lastException = ex instanceof IOException ? (IOException) ex : new IOException(ex);
+                disconnect();
+                synchronized (this) {
+                    consecutiveFailures++;
+                    if (consecutiveFailures >= failureThreshold)
+                        up = false;
+                }
+                if (verbose)
+                    System.err.println("Lirc@" + name + " probe failed: " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Closes the probing connection, if any. Can be called from any thread.
+         */
+        private void disconnect() {
+            LircClient client = lircClient.getAndSet(null);
+            if (client == null)
+                return;
+            try {
+                client.close();
+            } catch (IOException ex) {
+                // nothing sensible to do
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isUp() {
+            return up;
+        }
+
+        /**
+         * @return Answer to the last successful VERSION probe, or null if none.
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * @return Exception from the last failed probe, or null if none.
+         */
+        public IOException getLastException() {
+            return lastException;
+        }
+
+        public synchronized int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        /**
+         * @return Latencies of the last successful probes, in nanoseconds, oldest first.
+         */
+        public synchronized long[] getLatencyHistory() {
+            long[] result = new long[noLatencies];
+            for (int i = 0; i < noLatencies; i++)
+                result[i] = latencies[(nextLatency - noLatencies + i + historySize) % historySize];
+            return result;
+        }
+
+        /**
+         * @return Latency of the last successful probe in nanoseconds, or -1 if none.
+         */
+        public synchronized long getLastLatency() {
+            return noLatencies > 0 ? latencies[(nextLatency - 1 + historySize) % historySize] : -1L;
+        }
+
+        /**
+         * @param capability
+         * @return TRUE if known to be supported, FALSE if known to be rejected, null if not known.
+         */
+        public Boolean getCapability(Capability capability) {
+            return capabilities.get(capability);
+        }
+
+        /**
+         * @param capability
+         * @return false only if the server is known to reject the capability.
+         */
+        public boolean isSupported(Capability capability) {
+            return !Boolean.FALSE.equals(capabilities.get(capability));
+        }
+
+        /**
+         * Records that a command requiring the capability succeeded on this server.
+         * @param capability
+         */
+        public void learn(Capability capability) {
+            capabilities.put(capability, Boolean.TRUE);
+        }
+
+        /**
+         * Records that a command was rejected by this server, if the reason given means that the command
+         * is not supported or not enabled. Rejections due to bad arguments are ignored,
+         * as are commands that are not one of the {@link Capability}s.
+         * @param ex exception thrown by the command.
+         */
+        public void learn(LircServerException ex) {
+            Capability capability = Capability.of(ex.getCommand());
+            String reason = ex.getReason();
+            if (capability != null && reason != null && unsupportedPattern.matcher(reason).find())
+                capabilities.put(capability, Boolean.FALSE);
+        }
+
+        /**
+         * Forgets what has been learned about the capabilities, for example after the server has been reconfigured.
+         */
+        public void forgetCapabilities() {
+            capabilities.clear();
+        }
+
+        @Override
+        public String toString() {
+            return name + (up ? " up" : " down");
+        }
+    }
+}
@@ -24,11 +24,42 @@ import java.io.IOException;
  */
 public class LircServerException extends IOException {
 
+    private final String command;
+    private final String reason;
+
     public LircServerException() {
         super();
+        command = null;
+        reason = null;
     }
 
     public LircServerException(String message) {
         super(message);
+        command = null;
+        reason = null;
+    }
+
+    /**
+     * @param command the command rejected by the server.
+     * @param reason the reason given by the server, possibly empty.
+     */
+    public LircServerException(String command, String reason) {
+        super("command failed: " + command + (reason == null || reason.isEmpty() ? "" : " (" + reason + ")"));
+        this.command = command;
+        this.reason = reason;
+    }
+
+    /**
+     * @return The command rejected by the server, or null if not known.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return The reason given by the server, or null if not known.
+     */
+    public String getReason() {
+        return reason;
     }
 }
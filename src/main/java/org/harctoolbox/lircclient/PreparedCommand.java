@@ -0,0 +1,99 @@
+/*
+Copyright (C) 2017 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.lircclient;
+
+import java.nio.charset.Charset;
+
+/**
+ * A SEND_ONCE command for a fixed remote and command, encoded once, to be sent many times.
+ * Instances are immutable, and can be shared between threads and LircClients.
+ * Obtained from {@link LircClient#prepare(String, String)}.
+ */
+public final class PreparedCommand {
+
+    private static final Charset charset = Charset.forName(LircClient.encodingName);
+    private static final int MAXDIGITS = 10; // Integer.MAX_VALUE
+
+    private final String remote;
+    private final String command;
+    private final String remoteCommand;
+    private final String echoPrefix;
+    private final byte[] prefix;
+    private final String onceEcho;
+    private final byte[] once;
+
+    PreparedCommand(String remote, String command) {
+        this.remote = remote;
+        this.command = command;
+        remoteCommand = remote + " " + command;
+        echoPrefix = "SEND_ONCE " + remoteCommand + " ";
+        prefix = echoPrefix.getBytes(charset);
+        onceEcho = echoPrefix + "0";
+        once = (onceEcho + '\n').getBytes(charset);
+    }
+
+    public String getRemote() {
+        return remote;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @param count number of times to send, as in {@link LircClient#sendIrCommand(String, String, int)}.
+     * @return the line the server is expected to echo in its reply.
+     */
+    String echo(int count) {
+        return count == 1 ? onceEcho : echoPrefix + Integer.toString(count - 1);
+    }
+
+    /**
+     * @param count number of times to send, as in {@link LircClient#sendIrCommand(String, String, int)}.
+     * @return the bytes to send, including the terminating newline. Must not be modified.
+     */
+    byte[] encode(int count) {
+        if (count == 1)
+            return once;
+        if (count < 1)
+            throw new IllegalArgumentException("count must be positive");
+
+        byte[] digits = new byte[MAXDIGITS];
+        int position = MAXDIGITS;
+        int repeats = count - 1;
+        do {
+            digits[--position] = (byte) ('0' + repeats % 10);
+            repeats /= 10;
+        } while (repeats > 0);
+
+        int noDigits = MAXDIGITS - position;
+        byte[] result = new byte[prefix.length + noDigits + 1];
+        System.arraycopy(prefix, 0, result, 0, prefix.length);
+        System.arraycopy(digits, position, result, prefix.length, noDigits);
+        result[result.length - 1] = '\n';
+        return result;
+    }
+
+    /**
+     * @return remote and command, separated by a space.
+     */
+    @Override
+    public String toString() {
+        return remoteCommand;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+Copyright (C) 2017 Bengt Martensson.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 3 of the License, or (at
+your option) any later version.
+
+This program is distributed in the hope that it will be useful, but
+WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+General Public License for more details.
+
+You should have received a copy of the GNU General Public License along with
+this program. If not, see http://www.gnu.org/licenses/.
+*/
+
+package org.harctoolbox.lircclient;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for the receive side of a Lirc server.
+ * Injects synthetic key events with SIMULATE at a target rate, spread over several connections,
+ * and measures the latency until the events are broadcast back on a listening connection.
+ * The sequence number of every event is carried in its code field.
+ */
+public final class SimulateLoad {
+
+    public static final String DEFAULTREMOTE = "simulate-load";
+    public static final String DEFAULTBUTTON = "KEY_LOAD";
+
+    private final LircClientFactory lircClientFactory;
+    private final LircEventSource listener;
+    private final int connections;
+    private final double rate;
+    private final int count;
+    private final String remote;
+    private final String button;
+
+    private final AtomicLongArray sendTimes;
+    private final AtomicInteger sent;
+    private final AtomicInteger failed;
+    private final AtomicInteger failedReceived;
+    private final AtomicLong lastSendTime;
+    private final Histogram histogram;
+    private volatile boolean sendersDone;
+    private long start;
+
+    /**
+     * @param lircClientFactory opens the sending connections.
+     * @param listener connection on which the events are received. Must not be used for anything else during the run.
+     * @param connections number of sending connections, each in its own thread.
+     * @param rate target total rate, in events per second. Non-positive means as fast as possible.
+     * @param count total number of events to send.
+     * @param remote remote name to put in the events.
+     * @param button button name to put in the events.
+     */
+    public SimulateLoad(LircClientFactory lircClientFactory, LircEventSource listener, int connections, double rate, int count,
+            String remote, String button) {
+        if (connections < 1)
+            throw new IllegalArgumentException("connections must be at least 1");
+        if (count < 1)
+            throw new IllegalArgumentException("count must be at least 1");
+        this.lircClientFactory = lircClientFactory;
+        this.listener = listener;
+        this.connections = connections;
+        this.rate = rate;
+        this.count = count;
+        this.remote = remote != null ? remote : DEFAULTREMOTE;
+        this.button = button != null ? button : DEFAULTBUTTON;
+        this.sendTimes = new AtomicLongArray(count);
+        this.sent = new AtomicInteger(0);
+        this.failed = new AtomicInteger(0);
+        this.failedReceived = new AtomicInteger(0);
+        this.lastSendTime = new AtomicLong(0L);
+        this.histogram = new Histogram();
+        this.sendersDone = false;
+        this.start = 0L;
+    }
+
+    public SimulateLoad(LircClientFactory lircClientFactory, LircEventSource listener, int connections, double rate, int count) {
+        this(lircClientFactory, listener, connections, rate, count, DEFAULTREMOTE, DEFAULTBUTTON);
+    }
+
+    private String eventString(int sequenceNumber) {
+        return String.format("%016x 00 %s %s", sequenceNumber, button, remote);
+    }
+
+    /**
+     * Runs the load, and returns when all events have been received, or the listener times out
+     * after all events have been sent.
+     * @throws IOException if a sending connection could not be opened, or the listener fails.
+     */
+    public void run() throws IOException {
+        List<LircClient> senders = new ArrayList<>(connections);
+        try {
+            for (int i = 0; i < connections; i++)
+                senders.add(lircClientFactory.newLircClient());
+
+            long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0L;
+            start = System.nanoTime();
+            List<Thread> threads = new ArrayList<>(connections);
+            for (int i = 0; i < connections; i++) {
+                Thread thread = new Thread(new Sender(senders.get(i), i, start, intervalNanos), "simulate-load-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+
+            Thread joiner = new Thread(() -> {
+                for (Thread thread : threads) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                sendersDone = true;
+            }, "simulate-load-join");
+            joiner.start();
+
+            listen();
+        } finally {
+            for (LircClient sender : senders)
+                sender.close();
+        }
+    }
+
+    private void listen() throws IOException {
+        int received = 0;
+        // events whose SIMULATE failed, but were broadcast anyway, are counted in received but not in sent
+        while (!(sendersDone && received - failedReceived.get() >= sent.get())) {
+            String line;
+            try {
+                line = listener.readEvent();
+            } catch (SocketTimeoutException ex) {
+                if (sendersDone)
+                    break;
+                continue;
+            }
+            if (line == null)
+                break;
+
+            long now = System.nanoTime();
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length != 4 || !fields[2].equals(button) || !fields[3].equals(remote))
+                continue;
+
+            int sequenceNumber;
+            try {
+                sequenceNumber = (int) Long.parseLong(fields[0], 16);
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+            if (sequenceNumber < 0 || sequenceNumber >= count)
+                continue;
+
+            long sendTime = sendTimes.getAndSet(sequenceNumber, 0L);
+            if (sendTime == 0L)
+                continue; // duplicate, or from an earlier run
+            histogram.add(now - sendTime);
+            received++;
+        }
+    }
+
+    public int getSent() {
+        return sent.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getReceived() {
+        return histogram.getCount();
+    }
+
+    /**
+     * @return Number of events received although their SIMULATE command failed, for example by timing out.
+     */
+    public int getFailedReceived() {
+        return failedReceived.get();
+    }
+
+    /**
+     * @return Number of successfully sent events that were not received.
+     */
+    public int getLost() {
+        return sent.get() - (histogram.getCount() - failedReceived.get());
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    public void report(PrintStream out) {
+        out.println("Sent: " + sent.get() + ", failed: " + failed.get() + ", received: " + histogram.getCount()
+                + " (" + failedReceived.get() + " of them failed), lost: " + getLost());
+        String target = rate > 0 ? String.format("%.1f events/s", rate) : "unlimited";
+        double seconds = (lastSendTime.get() - start) / 1E9; // until the last send, not including the listener's timeout
+        if (sent.get() > 0 && seconds > 0)
+            out.println(String.format("Send time: %.3f s, achieved rate: %.1f events/s, target rate: %s",
+                    seconds, sent.get() / seconds, target));
+        else
+            out.println("Nothing sent, target rate: " + target);
+        histogram.print(out);
+    }
+
+    private final class Sender implements Runnable {
+
+        private final LircClient lircClient;
+        private final int first;
+        private final long start;
+        private final long intervalNanos;
+
+        Sender(LircClient lircClient, int first, long start, long intervalNanos) {
+            this.lircClient = lircClient;
+            this.first = first;
+            this.start = start;
+            this.intervalNanos = intervalNanos;
+        }
+
+        @Override
+        public void run() {
+            for (int sequenceNumber = first; sequenceNumber < count; sequenceNumber += connections) {
+                long due = start + sequenceNumber * intervalNanos;
+                long now;
+                while ((now = System.nanoTime()) < due)
+                    LockSupport.parkNanos(due - now);
+
+                sendTimes.set(sequenceNumber, now);
+                try {
+                    lircClient.simulate(eventString(sequenceNumber));
+                    sent.incrementAndGet();
+                    lastSendTime.accumulateAndGet(System.nanoTime(), Math::max);
+                } catch (IOException ex) {
+                    failed.incrementAndGet();
+                    if (sendTimes.getAndSet(sequenceNumber, 0L) == 0L)
+                        failedReceived.incrementAndGet(); // the listener got it already
+                }
+            }
+        }
+    }
+
+    /**
+     * Latency histogram with buckets of powers of two microseconds.
+     */
+    public static final class Histogram {
+
+        private static final int NOBUCKETS = 32;
+
+        private final long[] buckets;
+        private int count;
+        private long min;
+        private long max;
+        private long sum;
+
+        Histogram() {
+            buckets = new long[NOBUCKETS];
+            count = 0;
+            min = Long.MAX_VALUE;
+            max = 0L;
+            sum = 0L;
+        }
+
+        synchronized void add(long nanos) {
+            long micros = Math.max(nanos / 1000L, 1L);
+            int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), NOBUCKETS - 1);
+            buckets[bucket]++;
+            count++;
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+            sum += nanos;
+        }
+
+        public synchronized int getCount() {
+            return count;
+        }
+
+        /**
+         * @param fraction between 0 and 1.
+         * @return upper bound, in microseconds, of the bucket containing the requested quantile; 0 if empty.
+         */
+        public synchronized long getQuantile(double fraction) {
+            long wanted = (long) Math.ceil(fraction * count);
+            long seen = 0L;
+            for (int i = 0; i < NOBUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= wanted && seen > 0)
+                    return 1L << (i + 1);
+            }
+            return 0L;
+        }
+
+        public synchronized void print(PrintStream out) {
+            if (count == 0) {
+                out.println("No events received");
+                return;
+            }
+            out.println(String.format("Latency (us): min %d, mean %d, max %d, p50 < %d, p99 < %d",
+                    min / 1000L, sum / count / 1000L, max / 1000L, getQuantile(0.5), getQuantile(0.99)));
+            for (int i = 0; i < NOBUCKETS; i++)
+                if (buckets[i] > 0)
+                    out.println(String.format("%10d - %10d us: %8d", 1L << i, 1L << (i + 1), buckets[i]));
+        }
+    }
+}
@@ -29,7 +29,7 @@ import java.nio.charset.Charset;
 /**
  * An implementation of the LircClient using an TCP port, per default localhost at port 8765.
  */
-public final class TcpLircClient extends LircClient {
+public final class TcpLircClient extends LircClient implements LircEventSource {
 
     public final static int LIRCDEFAULTPORT = 8765;
     public final static String DEFAULTLIRCIP = "127.0.0.1"; // localhost
@@ -63,6 +63,11 @@ public final class TcpLircClient extends LircClient {
         this(address, port, false, DEFAULTTIMEOUT);
     }
 
+    @Override
+    public String readEvent() throws IOException {
+        return inFromServer.readLine();
+    }
+
     @Override
     protected String socketName() {
         return inetAddress.getCanonicalHostName() + ":" + Integer.toString(port);
@@ -24,7 +24,7 @@ import java.io.IOException;
  * An implementation of the LircClient using Unix domain sockets,
  * per default /var/run/lirc/lircd. To be written.
  */
-public class UnixDomainSocketLircClient extends LircClient {
+public class UnixDomainSocketLircClient extends LircClient implements LircEventSource {
 
     public static final String DEFAULTSOCKETPATH = "/var/run/lirc/lircd";
     private final String socketPath;
@@ -51,6 +51,11 @@ public class UnixDomainSocketLircClient extends LircClient {
             socket.close();
     }
 
+    @Override
+    public String readEvent() throws IOException {
+        return inFromServer.readLine();
+    }
+
     @Override
     protected final String socketName() {
         return socketPath;